@@ -283,7 +283,8 @@ public class MechanicShop{
 				System.out.println("8. ListCarsBefore1995With50000Milles");
 				System.out.println("9. ListKCarsWithTheMostServices");
 				System.out.println("10. ListCustomersInDescendingOrderOfTheirTotalBill");
-				System.out.println("11. < EXIT");
+				System.out.println("11. ArchiveRequestsBeforeDate");
+				System.out.println("12. < EXIT");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
@@ -299,7 +300,8 @@ public class MechanicShop{
 					case 8: ListCarsBefore1995With50000Milles(esql); break;
 					case 9: ListKCarsWithTheMostServices(esql); break;
 					case 10: ListCustomersInDescendingOrderOfTheirTotalBill(esql); break;
-					case 11: keepon = false; break;
+					case 11: ArchiveRequestsBeforeDate(esql); break;
+					case 12: keepon = false; break;
 				}
 			}
 		}catch(Exception e){
@@ -332,6 +334,74 @@ public class MechanicShop{
 		}while (true);
 		return input;
 	}//end readChoice
+
+	/**
+	 * Asks for an optional range of service request dates used to limit a
+	 * report. The range always applies to the day the request was opened,
+	 * which is what both request tables are partitioned on. Both bounds are
+	 * inclusive and either one may be left blank.
+	 *
+	 * @return {from, to}, each entry null when left blank
+	 * @throws java.io.IOException when reading the input fails
+	 */
+	public static String[] readDateRange() throws java.io.IOException {
+		String[] range = new String[2];
+		System.out.println("\nPlease enter the first service request date (YYYY-MM-DD, blank for no limit): ");
+		range[0] = readOptionalDate();
+		System.out.println("\nPlease enter the last service request date (YYYY-MM-DD, blank for no limit): ");
+		range[1] = readOptionalDate();
+		return range;
+	}//end readDateRange
+
+	private static String readOptionalDate() throws java.io.IOException {
+		String input = in.readLine().trim();
+		if (input.isEmpty()) {
+			return null;
+		}
+		try {
+			return java.sql.Date.valueOf(input).toString();
+		}catch (IllegalArgumentException e) {
+			throw new RuntimeException("\nInvalid date: " + input);
+		}
+	}
+
+	/**
+	 * Conditions restricting a date column to the range. The dates are
+	 * written as literals so that Postgres can skip the partitions outside
+	 * the range when planning the query.
+	 */
+	private static List<String> dateRangeConditions(String column, String[] range) {
+		List<String> conditions = new ArrayList<String>();
+		if (range[0] != null) {
+			conditions.add(String.format("%s >= DATE '%s'", column, range[0]));
+		}
+		if (range[1] != null) {
+			conditions.add(String.format("%s <= DATE '%s'", column, range[1]));
+		}
+		return conditions;
+	}
+
+	/**
+	 * @return the range as " AND ..." conditions to append to a WHERE clause
+	 */
+	public static String dateRangeFilter(String column, String[] range) {
+		String filter = "";
+		for (String condition : dateRangeConditions(column, range)) {
+			filter += " AND " + condition;
+		}
+		return filter;
+	}
+
+	/**
+	 * @return the range as a " WHERE ..." clause, or "" when there is no limit
+	 */
+	public static String dateRangeWhere(String column, String[] range) {
+		List<String> conditions = dateRangeConditions(column, range);
+		if (conditions.isEmpty()) {
+			return "";
+		}
+		return " WHERE " + String.join(" AND ", conditions);
+	}
 	
 	public static void AddCustomer(MechanicShop esql)
         {//1
@@ -523,10 +593,6 @@ public class MechanicShop{
 			esql.executeQueryAndPrintResult(query);
 			
 			//Step 5: Enter service request information
-			query = String.format("SELECT MAX(rid) FROM Service_Request");
-			List<List<String>> data = esql.executeQueryAndReturnResult(query);
-			int rid = Integer.parseInt(data.get(0).get(0)) + 1;
-			
                         System.out.println("\nPlease enter service request's date: ");
                         String date = in.readLine();
                         System.out.println("\nPlease enter service request's odometer: ");
@@ -534,6 +600,13 @@ public class MechanicShop{
 			System.out.println("\nPlease enter service request's complaint: ");
                         String complain = in.readLine();
 			
+			//Creates the partitions for this year if they do not exist yet
+			esql.executeQuery(String.format("SELECT create_request_partitions(EXTRACT(YEAR FROM DATE '%s')::INTEGER)", date));
+			
+			query = String.format("SELECT nextval('service_request_rid_seq')");
+			List<List<String>> data = esql.executeQueryAndReturnResult(query);
+			int rid = Integer.parseInt(data.get(0).get(0));
+			
 			//Updates Service_Request query
 			query = "INSERT INTO Service_Request(rid, customer_id, car_vin, date, odometer, complain) VALUES(" + rid + ", " + id_input + ", \'" + vin_input + "\', \'" + date + "\', " + odometer + ", \'" + complain + "\');";
 			esql.executeUpdate(query);
@@ -566,7 +639,7 @@ public class MechanicShop{
 				}
 			}
 			else {
-				throw new RuntimeException("\nService Request does not exist.");
+				throw new RuntimeException("\nService Request does not exist or has been archived.");
 			}
 			
 			//Step 2: Enter the Mechanic id
@@ -581,9 +654,9 @@ public class MechanicShop{
 			}
 			
 			//Step 3: Enter closed request information
-			query = String.format("SELECT MAX(wid) FROM Closed_Request ");
+			query = String.format("SELECT nextval('closed_request_wid_seq')");
 			List<List<String>> data = esql.executeQueryAndReturnResult(query);
-			int wid = Integer.parseInt(data.get(0).get(0)) + 1;
+			int wid = Integer.parseInt(data.get(0).get(0));
 			
 			System.out.println("\nPlease enter closed request's date: ");
                         String date = in.readLine();
@@ -592,8 +665,16 @@ public class MechanicShop{
 			System.out.println("\nPlease enter closed request's bill: ");
                         int bill = Integer.parseInt(in.readLine());
 			
+			//Closing date cannot be before the request was opened
+			query = String.format("SELECT s.date FROM Service_Request s WHERE s.rid = %d AND s.date <= DATE '%s'", rid, date);
+			data = esql.executeQueryAndReturnResult(query);
+			if (data.isEmpty()) {
+				throw new RuntimeException("\nClosing date is before the service request's date.");
+			}
+			String request_date = data.get(0).get(0);
+			
 			//Updates Closed_Request 
-			query = "INSERT INTO Closed_Request(wid, rid, mid, date, comment, bill) VALUES(" + wid + ", " + rid + ", " + mid + ", \'" + date + "\', \'" + comment + "\', " + bill + ");";
+			query = "INSERT INTO Closed_Request(wid, rid, request_date, mid, date, comment, bill) VALUES(" + wid + ", " + rid + ", \'" + request_date + "\', " + mid + ", \'" + date + "\', \'" + comment + "\', " + bill + ");";
 			esql.executeUpdate(query);
 
                         query = String.format("SELECT c.* FROM Closed_Request c WHERE c.wid = %d", wid);
@@ -608,7 +689,8 @@ public class MechanicShop{
 	
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		try{
-			String query = String.format("SELECT c.fname, c.lname, cr.date, cr.comment, cr.bill FROM Customer c, Service_Request sr, Closed_Request cr WHERE c.id = sr.customer_id AND sr.rid = cr.rid AND cr.bill < 100");
+			String[] range = readDateRange();
+			String query = String.format("SELECT c.fname, c.lname, cr.date, cr.comment, cr.bill FROM Customer c, Service_Request sr, Closed_Request cr WHERE c.id = sr.customer_id AND sr.rid = cr.rid AND sr.date = cr.request_date AND cr.bill < 100%s%s", dateRangeFilter("sr.date", range), dateRangeFilter("cr.request_date", range));
 			esql.executeQueryAndPrintResult(query);
 		}catch(Exception e) {
 			System.err.println (e.getMessage ());
@@ -626,7 +708,8 @@ public class MechanicShop{
 	
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 		try {
-			String query = String.format("SELECT c.make, c.model, c.year, s.odometer FROM Car c, Service_Request s WHERE c.vin = s.car_vin AND c.year < 1995 AND s.odometer < 50000");
+			String[] range = readDateRange();
+			String query = String.format("SELECT c.make, c.model, c.year, s.odometer FROM Car c, Service_Request s WHERE c.vin = s.car_vin AND c.year < 1995 AND s.odometer < 50000%s", dateRangeFilter("s.date", range));
 			esql.executeQueryAndPrintResult(query);
 		}catch(Exception e) {
 			System.err.println (e.getMessage ());
@@ -637,7 +720,8 @@ public class MechanicShop{
 		try {
 			System.out.println("\nPlease Enter the K value: ");
 			int k = Integer.parseInt(in.readLine());
-			String query = String.format("SELECT c.make, c.model, A.c2 AS SR_COUNT FROM (SELECT s.car_vin AS c1, COUNT(s.car_vin) AS c2 FROM Service_Request s GROUP BY (s.car_vin)) A, Car c WHERE c.vin = A.c1 ORDER BY A.c2 DESC;");
+			String[] range = readDateRange();
+			String query = String.format("SELECT c.make, c.model, A.c2 AS SR_COUNT FROM (SELECT s.car_vin AS c1, COUNT(s.car_vin) AS c2 FROM Service_Request s%s GROUP BY (s.car_vin)) A, Car c WHERE c.vin = A.c1 ORDER BY A.c2 DESC;", dateRangeWhere("s.date", range));
 			esql.executeQueryAndPrintResult(query, k);
 		}catch(Exception e) {
 			System.err.println (e.getMessage ());
@@ -646,12 +730,36 @@ public class MechanicShop{
 	
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//9
 		try {
-			String query = String.format("SELECT D.fname, D.lname, B.Total_Bill FROM (SELECT sr.customer_id AS A, SUM(cr.bill) AS Total_Bill FROM Closed_Request cr, Service_Request sr, Customer c WHERE sr.rid = cr.rid AND sr.customer_id = c.id GROUP BY sr.customer_id) B, Customer D WHERE D.id = B.A ORDER BY B.Total_Bill DESC;");
+			String[] range = readDateRange();
+			String query = String.format("SELECT D.fname, D.lname, B.Total_Bill FROM (SELECT sr.customer_id AS A, SUM(cr.bill) AS Total_Bill FROM Closed_Request cr, Service_Request sr, Customer c WHERE sr.rid = cr.rid AND sr.date = cr.request_date AND sr.customer_id = c.id%s%s GROUP BY sr.customer_id) B, Customer D WHERE D.id = B.A ORDER BY B.Total_Bill DESC;", dateRangeFilter("sr.date", range), dateRangeFilter("cr.request_date", range));
 			esql.executeQueryAndPrintResult(query);
 		}catch(Exception e) {
 			System.err.println (e.getMessage ());
 		}
 	}
+	
+	public static void ArchiveRequestsBeforeDate(MechanicShop esql){//11
+		try {
+			System.out.println("\nPlease enter the date (YYYY-MM-DD) to archive whole years before: ");
+			String before = readOptionalDate();
+			if (before == null) {
+				throw new RuntimeException("\nA date is required.");
+			}
+			//Years that still have open requests are kept and reported as such
+			String query = String.format("SELECT * FROM archive_request_partitions(DATE '%s')", before);
+			List<List<String>> data = esql.executeQueryAndReturnResult(query);
+			int archived = 0;
+			for (List<String> row : data) {
+				System.out.println(row.get(0) + "\t" + row.get(1));
+				if (row.get(1).equals("archived")) {
+					++archived;
+				}
+			}
+			System.out.println ("archived year(s): " + archived);
+		}catch(Exception e) {
+			System.err.println (e.getMessage ());
+		}
+	}
 }
 	
 	
@@ -4,6 +4,15 @@ DROP TABLE IF EXISTS Car CASCADE;--OK
 DROP TABLE IF EXISTS Owns CASCADE;--OK
 DROP TABLE IF EXISTS Service_Request CASCADE;--OK
 DROP TABLE IF EXISTS Closed_Request CASCADE;--OK
+DROP TABLE IF EXISTS Service_Request_Key CASCADE;--OK
+DROP TABLE IF EXISTS Closed_Request_Key CASCADE;--OK
+DROP SEQUENCE IF EXISTS service_request_rid_seq;--OK
+DROP SEQUENCE IF EXISTS closed_request_wid_seq;--OK
+DROP SCHEMA IF EXISTS archive CASCADE;--OK
+DROP FUNCTION IF EXISTS create_request_partitions(INTEGER);--OK
+DROP FUNCTION IF EXISTS archive_request_partitions(DATE);--OK
+DROP FUNCTION IF EXISTS reserve_service_request_rid();--OK
+DROP FUNCTION IF EXISTS reserve_closed_request_wid();--OK
 
 
 -------------
@@ -61,6 +70,14 @@ CREATE TABLE Owns
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
 );
 
+--Service_Request and Closed_Request are partitioned by year so that reports
+--over a date range only scan the matching partitions and old years can be
+--moved out with archive_request_partitions(). Requires PostgreSQL 12 or newer
+--(foreign keys referencing a partitioned table).
+--Closed_Request is partitioned on request_date, the date its service request
+--was opened, so that a request and its closing always live in the same year.
+--The partition key has to be part of every primary key, so rid and wid are
+--kept unique on their own by the key tables below.
 CREATE TABLE Service_Request
 (
 	rid INTEGER NOT NULL,
@@ -69,24 +86,150 @@ CREATE TABLE Service_Request
 	date DATE NOT NULL,
 	odometer _PINTEGER NOT NULL,
 	complain TEXT,
-	PRIMARY KEY (rid),
+	PRIMARY KEY (rid, date),
 	FOREIGN KEY (customer_id) REFERENCES Customer(id),
 	FOREIGN KEY (car_vin) REFERENCES Car(vin)
-);
+) PARTITION BY RANGE (date);
 
 CREATE TABLE Closed_Request
 (
 	wid INTEGER NOT NULL,
 	rid INTEGER NOT NULL,
+	request_date DATE NOT NULL,
 	mid INTEGER NOT NULL,
 	date DATE NOT NULL,
 	comment TEXT,
 	bill _PINTEGER NOT NULL,
-	PRIMARY KEY (wid),
-	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
+	PRIMARY KEY (wid, request_date),
+	CHECK (date >= request_date),
+	FOREIGN KEY (rid, request_date) REFERENCES Service_Request(rid, date),
 	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+) PARTITION BY RANGE (request_date);
+
+CREATE INDEX closed_request_rid_idx ON Closed_Request (rid, request_date);
+
+--Every rid and wid ever used, including archived ones. The triggers add a
+--row for each new request, so a duplicate id fails on the primary key.
+--New ids come from the sequences, which archiving does not touch.
+CREATE TABLE Service_Request_Key
+(
+	rid INTEGER NOT NULL,
+	PRIMARY KEY (rid)
+);
+
+CREATE TABLE Closed_Request_Key
+(
+	wid INTEGER NOT NULL,
+	PRIMARY KEY (wid)
 );
 
+CREATE SEQUENCE service_request_rid_seq;
+CREATE SEQUENCE closed_request_wid_seq;
+
+CREATE FUNCTION reserve_service_request_rid() RETURNS TRIGGER AS $$
+BEGIN
+	IF TG_OP = 'UPDATE' THEN
+		UPDATE Service_Request_Key SET rid = NEW.rid WHERE rid = OLD.rid;
+	ELSE
+		INSERT INTO Service_Request_Key (rid) VALUES (NEW.rid);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION reserve_closed_request_wid() RETURNS TRIGGER AS $$
+BEGIN
+	IF TG_OP = 'UPDATE' THEN
+		UPDATE Closed_Request_Key SET wid = NEW.wid WHERE wid = OLD.wid;
+	ELSE
+		INSERT INTO Closed_Request_Key (wid) VALUES (NEW.wid);
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER service_request_rid_key AFTER INSERT OR UPDATE OF rid ON Service_Request
+	FOR EACH ROW EXECUTE PROCEDURE reserve_service_request_rid();
+CREATE TRIGGER closed_request_wid_key AFTER INSERT OR UPDATE OF wid ON Closed_Request
+	FOR EACH ROW EXECUTE PROCEDURE reserve_closed_request_wid();
+
+----------------
+---PARTITIONS---
+----------------
+CREATE SCHEMA archive;
+
+--Creates the partitions of Service_Request and Closed_Request for one year
+--unless they already exist. InsertServiceRequest calls this for the year of
+--each new request. A year that has been archived is not created again.
+CREATE FUNCTION create_request_partitions(p_year INTEGER) RETURNS VOID AS $$
+BEGIN
+	IF to_regclass(format('service_request_%s', p_year)) IS NOT NULL
+		AND to_regclass(format('closed_request_%s', p_year)) IS NOT NULL THEN
+		RETURN;
+	END IF;
+	IF to_regclass(format('archive.service_request_%s', p_year)) IS NOT NULL THEN
+		RAISE EXCEPTION 'Requests of % have been archived', p_year;
+	END IF;
+	EXECUTE format('CREATE TABLE IF NOT EXISTS service_request_%s PARTITION OF Service_Request FOR VALUES FROM (%L) TO (%L)',
+		p_year, make_date(p_year, 1, 1), make_date(p_year + 1, 1, 1));
+	EXECUTE format('CREATE TABLE IF NOT EXISTS closed_request_%s PARTITION OF Closed_Request FOR VALUES FROM (%L) TO (%L)',
+		p_year, make_date(p_year, 1, 1), make_date(p_year + 1, 1, 1));
+END;
+$$ LANGUAGE plpgsql;
+
+--Moves every year that ends on or before p_before to the archive schema.
+--The service requests of a year and their closings are moved together, and
+--the foreign key between them is recreated on the archived tables.
+--A year that still has open requests is kept, since they could no longer be
+--closed once archived. Returns one row per year with what was done.
+CREATE FUNCTION archive_request_partitions(p_before DATE) RETURNS TABLE(request_year INTEGER, status TEXT) AS $$
+DECLARE
+	part RECORD;
+	fk RECORD;
+	open_count INTEGER;
+BEGIN
+	FOR part IN
+		SELECT substring(child.relname FROM '(\d{4})$')::INTEGER AS year
+		FROM pg_inherits i
+			JOIN pg_class child ON child.oid = i.inhrelid
+		WHERE i.inhparent = 'service_request'::regclass
+			AND child.relname ~ '^service_request_\d{4}$'
+			AND make_date(substring(child.relname FROM '(\d{4})$')::INTEGER + 1, 1, 1) <= p_before
+		ORDER BY 1
+	LOOP
+		request_year := part.year;
+		EXECUTE format('SELECT COUNT(*) FROM service_request_%1$s s WHERE NOT EXISTS (SELECT 1 FROM closed_request_%1$s c WHERE c.rid = s.rid)', part.year)
+			INTO open_count;
+		IF open_count > 0 THEN
+			status := format('kept, %s open request(s)', open_count);
+			RETURN NEXT;
+			CONTINUE;
+		END IF;
+
+		--Closings first: once detached, their copy of the foreign key to
+		--Service_Request is dropped so the request partition can follow.
+		EXECUTE format('ALTER TABLE Closed_Request DETACH PARTITION closed_request_%s', part.year);
+		FOR fk IN
+			SELECT conname FROM pg_constraint
+			WHERE conrelid = format('closed_request_%s', part.year)::regclass
+				AND confrelid = 'service_request'::regclass
+		LOOP
+			EXECUTE format('ALTER TABLE closed_request_%s DROP CONSTRAINT %I', part.year, fk.conname);
+		END LOOP;
+		EXECUTE format('ALTER TABLE Service_Request DETACH PARTITION service_request_%s', part.year);
+
+		EXECUTE format('ALTER TABLE service_request_%s SET SCHEMA archive', part.year);
+		EXECUTE format('ALTER TABLE closed_request_%s SET SCHEMA archive', part.year);
+		EXECUTE format('ALTER TABLE archive.closed_request_%1$s ADD FOREIGN KEY (rid, request_date) REFERENCES archive.service_request_%1$s(rid, date)', part.year);
+
+		status := 'archived';
+		RETURN NEXT;
+	END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+SELECT create_request_partitions(y) FROM generate_series(2016, EXTRACT(YEAR FROM CURRENT_DATE)::INTEGER + 1) y;
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -138,7 +281,18 @@ COPY Service_Request (
 FROM 'service_request.csv'
 WITH DELIMITER ',';
 
-COPY Closed_Request (
+--closed_request.csv has no request_date; it is taken from Service_Request.
+CREATE TEMP TABLE Closed_Request_Load
+(
+	wid INTEGER,
+	rid INTEGER,
+	mid INTEGER,
+	date DATE,
+	comment TEXT,
+	bill INTEGER
+);
+
+COPY Closed_Request_Load (
 	wid,
 	rid,
 	mid,
@@ -147,4 +301,13 @@ COPY Closed_Request (
 	bill
 )
 FROM 'closed_request.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+WITH DELIMITER ',';
+
+INSERT INTO Closed_Request (wid, rid, request_date, mid, date, comment, bill)
+SELECT l.wid, l.rid, sr.date, l.mid, l.date, l.comment, l.bill
+FROM Closed_Request_Load l LEFT JOIN Service_Request sr ON sr.rid = l.rid;
+
+DROP TABLE Closed_Request_Load;
+
+SELECT setval('service_request_rid_seq', (SELECT MAX(rid) FROM Service_Request_Key));
+SELECT setval('closed_request_wid_seq', (SELECT MAX(wid) FROM Closed_Request_Key));
\ No newline at end of file